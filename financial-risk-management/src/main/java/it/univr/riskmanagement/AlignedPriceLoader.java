@@ -0,0 +1,385 @@
+package it.univr.riskmanagement;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeParseException;
+import java.util.Arrays;
+import java.util.Iterator;
+
+import javax.xml.parsers.ParserConfigurationException;
+
+import org.apache.poi.openxml4j.exceptions.OpenXML4JException;
+import org.apache.poi.openxml4j.opc.OPCPackage;
+import org.apache.poi.openxml4j.opc.PackageAccess;
+import org.apache.poi.ss.usermodel.DateUtil;
+import org.apache.poi.util.XMLHelper;
+import org.apache.poi.xssf.eventusermodel.ReadOnlySharedStringsTable;
+import org.apache.poi.xssf.eventusermodel.XSSFReader;
+import org.xml.sax.Attributes;
+import org.xml.sax.InputSource;
+import org.xml.sax.SAXException;
+import org.xml.sax.XMLReader;
+import org.xml.sax.helpers.DefaultHandler;
+
+
+/*
+ * Questa classe carica un numero qualsiasi di strumenti dai file Excel e li allinea per data.
+ * I titoli possono avere date di contrattazione diverse: ogni file viene letto con la sua colonna delle date
+ * e le serie vengono unite (merge-join) sulle date comuni secondo una politica di gestione dei buchi (GapPolicy).
+ * I file possono essere risorse del classpath (come NIKE.xlsx e NOVO.xlsx) oppure file sul disco.
+ * I file vengono letti in streaming (SAX) senza costruire il workbook in memoria, e le date sono
+ * gestite come giorni dall'epoca in array primitivi ordinati, senza mappe né oggetti boxed.
+ */
+public class AlignedPriceLoader {
+
+
+	/*
+	 * Politica con cui vengono trattate le date in cui non tutti gli strumenti hanno un prezzo:
+	 * DROP mantiene solo le date presenti in tutti i file (intersezione);
+	 * FORWARD_FILL mantiene tutte le date (unione) e riporta in avanti l'ultimo prezzo disponibile.
+	 * Con FORWARD_FILL le date precedenti alla prima osservazione dello strumento più recente
+	 * vengono scartate, perché non esiste un prezzo da riportare.
+	 */
+	public enum GapPolicy {
+		DROP,
+		FORWARD_FILL
+	}
+
+
+	// Colonne dei file scaricati da Yahoo Finance: data in A, prezzo di chiusura in E
+	private static final int DATE_COLUMN = 0;
+	private static final int PRICE_COLUMN = 4;
+
+
+	public static AlignedPrices load(GapPolicy gapPolicy, String... resources) throws IOException {
+		return load(gapPolicy, PRICE_COLUMN, resources);
+	}
+
+
+	/*
+	 * Legge ciascuna risorsa (ad esempio "/NIKE.xlsx") e produce la matrice dei prezzi allineati.
+	 * Il lavoro di allineamento è lineare nel numero totale di osservazioni: ogni serie ordinata
+	 * viene scorsa una volta per contare le date e una volta per riempire la propria colonna.
+	 */
+	public static AlignedPrices load(GapPolicy gapPolicy, int priceColumn, String... resources) throws IOException {
+		if (resources.length == 0) {
+			throw new IllegalArgumentException("At least one instrument is required");
+		}
+		SeriesReader[] series = new SeriesReader[resources.length];
+		for (int j = 0; j < resources.length; j++) {
+			try (InputStream is = AlignedPriceLoader.class.getResourceAsStream(resources[j])) {
+				if (is == null) {
+					throw new IOException("Resource not found: " + resources[j]);
+				}
+				series[j] = readSeries(resources[j], () -> OPCPackage.open(is), priceColumn);
+			}
+		}
+		return align(gapPolicy, resources, series);
+	}
+
+
+	public static AlignedPrices load(GapPolicy gapPolicy, Path... files) throws IOException {
+		return load(gapPolicy, PRICE_COLUMN, files);
+	}
+
+
+	/*
+	 * Come il metodo precedente, ma legge i file direttamente dal disco: in questo modo non è necessario
+	 * includere nel jar i file di tutti gli strumenti. I file vengono aperti in sola lettura.
+	 */
+	public static AlignedPrices load(GapPolicy gapPolicy, int priceColumn, Path... files) throws IOException {
+		if (files.length == 0) {
+			throw new IllegalArgumentException("At least one instrument is required");
+		}
+		String[] names = new String[files.length];
+		SeriesReader[] series = new SeriesReader[files.length];
+		for (int j = 0; j < files.length; j++) {
+			Path file = files[j];
+			names[j] = file.toString();
+			if (!Files.isRegularFile(file)) {
+				throw new IOException("File not found: " + file);
+			}
+			series[j] = readSeries(names[j], () -> OPCPackage.open(file.toFile(), PackageAccess.READ), priceColumn);
+		}
+		return align(gapPolicy, names, series);
+	}
+
+
+	private static AlignedPrices align(GapPolicy gapPolicy, String[] names, SeriesReader[] series) throws IOException {
+		int[][] days = new int[series.length][];
+		double[][] prices = new double[series.length][];
+		for (int j = 0; j < series.length; j++) {
+			days[j] = Arrays.copyOf(series[j].days, series[j].size);
+			prices[j] = Arrays.copyOf(series[j].prices, series[j].size);
+		}
+		return align(gapPolicy, names, days, prices);
+	}
+
+
+	/*
+	 * Questo metodo esegue il merge-join su serie già ordinate per data.
+	 * Poiché le date sono interi consecutivi, si utilizza un array di conteggi sull'intervallo
+	 * [prima data, ultima data]: il numero di strumenti che quotano in un certo giorno decide,
+	 * in base alla GapPolicy, se quel giorno fa parte della griglia comune.
+	 * Successivamente ogni colonna viene riempita scorrendo in parallelo la propria serie e la griglia.
+	 */
+	static AlignedPrices align(GapPolicy gapPolicy, String[] names, int[][] days, double[][] prices) throws IOException {
+		int numberOfInstruments = days.length;
+		int firstDay = Integer.MAX_VALUE;
+		int lastDay = Integer.MIN_VALUE;
+		int latestStart = Integer.MIN_VALUE;
+		for (int j = 0; j < numberOfInstruments; j++) {
+			if (days[j].length == 0) {
+				throw new IOException("No valid observations found in " + names[j]);
+			}
+			firstDay = Math.min(firstDay, days[j][0]);
+			lastDay = Math.max(lastDay, days[j][days[j].length - 1]);
+			latestStart = Math.max(latestStart, days[j][0]);
+		}
+
+		int[] counts = new int[lastDay - firstDay + 1];
+		for (int j = 0; j < numberOfInstruments; j++) {
+			for (int day : days[j]) {
+				counts[day - firstDay]++;
+			}
+		}
+
+		int[] alignedDays = new int[counts.length];
+		int size = 0;
+		for (int d = 0; d < counts.length; d++) {
+			boolean keep = gapPolicy == GapPolicy.DROP
+					? counts[d] == numberOfInstruments
+					: counts[d] > 0 && firstDay + d >= latestStart;
+			if (keep) {
+				alignedDays[size++] = firstDay + d;
+			}
+		}
+		alignedDays = Arrays.copyOf(alignedDays, size);
+
+		double[][] alignedPrices = new double[numberOfInstruments][size];
+		for (int j = 0; j < numberOfInstruments; j++) {
+			int[] instrumentDays = days[j];
+			int p = 0;
+			for (int t = 0; t < size; t++) {
+				// si avanza fino all'ultima osservazione non successiva alla data comune
+				while (p + 1 < instrumentDays.length && instrumentDays[p + 1] <= alignedDays[t]) {
+					p++;
+				}
+				alignedPrices[j][t] = prices[j][p];
+			}
+		}
+		return new AlignedPrices(names.clone(), alignedDays, alignedPrices);
+	}
+
+
+	/*
+	 * Apertura del pacchetto OOXML, diversa per le risorse del classpath e per i file sul disco.
+	 */
+	private interface PackageOpener {
+		OPCPackage open() throws IOException, OpenXML4JException;
+	}
+
+	private static SeriesReader readSeries(String name, PackageOpener opener, int priceColumn) throws IOException {
+		try (OPCPackage pkg = opener.open()) {
+			XSSFReader reader = new XSSFReader(pkg);
+			SeriesReader series = new SeriesReader(name, new ReadOnlySharedStringsTable(pkg), priceColumn);
+			Iterator<InputStream> sheets = reader.getSheetsData();
+			if (!sheets.hasNext()) {
+				throw new IOException("No sheets found in " + name);
+			}
+			// Viene letto solo il primo foglio, che contiene la serie storica
+			try (InputStream sheet = sheets.next()) {
+				XMLReader parser = XMLHelper.newXMLReader();
+				parser.setContentHandler(series);
+				parser.parse(new InputSource(sheet));
+			}
+			return series;
+		} catch (OpenXML4JException | SAXException | ParserConfigurationException e) {
+			throw new IOException("Unable to read " + name, e);
+		}
+	}
+
+
+	/*
+	 * Handler SAX che legge, riga per riga, la data e il prezzo di un singolo foglio.
+	 * Una riga viene accettata solo se sia la data sia il prezzo sono validi, così da non
+	 * disallineare le due colonne come accadrebbe leggendole separatamente.
+	 * Le date devono essere in ordine strettamente crescente, condizione necessaria per il merge-join.
+	 */
+	private static class SeriesReader extends DefaultHandler {
+
+		private final String resource;
+		private final ReadOnlySharedStringsTable sharedStrings;
+		private final int priceColumn;
+
+		private int[] days = new int[256];
+		private double[] prices = new double[256];
+		private int size = 0;
+
+		private final StringBuilder value = new StringBuilder();
+		private boolean readingValue;
+		private boolean headerSkipped;
+		private int rowNumber;
+		private int column;
+		private String cellType;
+		private String dateText;
+		private boolean dateNumeric;
+		private String priceText;
+
+		SeriesReader(String resource, ReadOnlySharedStringsTable sharedStrings, int priceColumn) {
+			this.resource = resource;
+			this.sharedStrings = sharedStrings;
+			this.priceColumn = priceColumn;
+		}
+
+		@Override
+		public void startElement(String uri, String localName, String qName, Attributes attributes) {
+			switch (localName) {
+			case "row":
+				// si usa il numero di riga del foglio, perché le righe vuote possono essere omesse nel file
+				rowNumber = rowNumber(attributes.getValue("r"));
+				column = -1;
+				dateText = null;
+				priceText = null;
+				break;
+			case "c":
+				String reference = attributes.getValue("r");
+				column = reference != null ? columnIndex(reference) : column + 1;
+				cellType = attributes.getValue("t");
+				value.setLength(0);
+				break;
+			case "v":
+			case "t":
+				readingValue = true;
+				break;
+			default:
+				break;
+			}
+		}
+
+		@Override
+		public void characters(char[] ch, int start, int length) {
+			if (readingValue) {
+				value.append(ch, start, length);
+			}
+		}
+
+		@Override
+		public void endElement(String uri, String localName, String qName) throws SAXException {
+			switch (localName) {
+			case "v":
+			case "t":
+				readingValue = false;
+				break;
+			case "c":
+				if (column == DATE_COLUMN) {
+					dateText = cellText();
+					dateNumeric = cellType == null || "n".equals(cellType);
+				} else if (column == priceColumn) {
+					priceText = cellText();
+				}
+				break;
+			case "row":
+				// La prima riga contiene le intestazioni
+				if (!headerSkipped) {
+					headerSkipped = true;
+				} else {
+					addRow();
+				}
+				break;
+			default:
+				break;
+			}
+		}
+
+		private String cellText() throws SAXException {
+			String text = value.toString().trim();
+			if ("s".equals(cellType) && !text.isEmpty()) {
+				try {
+					return sharedStrings.getItemAt(Integer.parseInt(text)).getString().trim();
+				} catch (NumberFormatException | IndexOutOfBoundsException e) {
+					throw new SAXException("Invalid shared string index " + text + " at row " + rowNumber + " in " + resource, e);
+				}
+			}
+			return text;
+		}
+
+		private void addRow() throws SAXException {
+			if (dateText == null || dateText.isEmpty() || priceText == null || priceText.isEmpty()) {
+				System.out.println("Incomplete row " + rowNumber + " in " + resource);
+				return;
+			}
+			int day;
+			double price;
+			try {
+				day = parseEpochDay(dateText);
+				price = Double.parseDouble(priceText.replace("$", ""));
+			} catch (DateTimeParseException | NumberFormatException e) {
+				System.out.println("Invalid value at row " + rowNumber + " in " + resource);
+				return;
+			}
+			if (size > 0 && day <= days[size - 1]) {
+				throw new SAXException("Dates must be strictly increasing (row " + rowNumber + " in " + resource + ")");
+			}
+			if (size == days.length) {
+				days = Arrays.copyOf(days, size * 2);
+				prices = Arrays.copyOf(prices, size * 2);
+			}
+			days[size] = day;
+			prices[size] = price;
+			size++;
+		}
+
+		/*
+		 * Le date sono normalmente stringhe nel formato yyyy-MM-dd, come nei file NIKE.xlsx e NOVO.xlsx;
+		 * se la cella è invece una data numerica di Excel, viene convertita con DateUtil.
+		 */
+		private int parseEpochDay(String text) {
+			if (dateNumeric) {
+				double serial;
+				try {
+					serial = Double.parseDouble(text);
+				} catch (NumberFormatException e) {
+					serial = Double.NaN; // non è un numero: si prova il formato testuale
+				}
+				if (!Double.isNaN(serial)) {
+					// DateUtil restituisce null per i numeri che non sono date valide di Excel (ad esempio negativi)
+					LocalDateTime dateTime = DateUtil.getLocalDateTime(serial);
+					if (dateTime == null) {
+						throw new DateTimeParseException("Invalid Excel date", text, 0);
+					}
+					return (int) dateTime.toLocalDate().toEpochDay();
+				}
+			}
+			return (int) LocalDate.parse(text).toEpochDay();
+		}
+
+		private int rowNumber(String reference) {
+			if (reference != null) {
+				try {
+					return Integer.parseInt(reference);
+				} catch (NumberFormatException e) {
+					// attributo non valido: si prosegue contando le righe
+				}
+			}
+			return rowNumber + 1;
+		}
+
+		private static int columnIndex(String reference) {
+			int index = 0;
+			for (int i = 0; i < reference.length(); i++) {
+				char c = reference.charAt(i);
+				if (c < 'A' || c > 'Z') {
+					break;
+				}
+				index = index * 26 + (c - 'A' + 1);
+			}
+			return index - 1;
+		}
+	}
+
+}
@@ -0,0 +1,64 @@
+package it.univr.riskmanagement;
+
+import java.time.LocalDate;
+
+
+/*
+ * Questa classe contiene il risultato dell'allineamento per data prodotto da AlignedPriceLoader.
+ * Le date sono memorizzate come giorni dall'epoca (LocalDate.toEpochDay()) in un array primitivo ordinato,
+ * mentre i prezzi sono organizzati per colonne: prices[j][t] è il prezzo dello strumento j alla data t.
+ * In questo modo ogni colonna può essere passata direttamente ai metodi di DataManagement e RiskMeasures.
+ */
+public class AlignedPrices {
+
+
+	private final String[] instrumentNames; // Nomi delle risorse da cui sono stati letti gli strumenti
+	private final int[] epochDays; // Date comuni, in giorni dall'epoca e in ordine crescente
+	private final double[][] prices; // Matrice dei prezzi allineati, una colonna per strumento
+
+
+	AlignedPrices(String[] instrumentNames, int[] epochDays, double[][] prices) {
+		this.instrumentNames = instrumentNames;
+		this.epochDays = epochDays;
+		this.prices = prices;
+	}
+
+
+	public int getNumberOfInstruments() {
+		return prices.length;
+	}
+
+	public int getNumberOfObservations() {
+		return epochDays.length;
+	}
+
+	public String getInstrumentName(int instrument) {
+		return instrumentNames[instrument];
+	}
+
+
+	/*
+	 * Restituisce la colonna dei prezzi dello strumento richiesto.
+	 * L'array non viene copiato: chi lo riceve non deve modificarlo.
+	 */
+	public double[] getPrices(int instrument) {
+		return prices[instrument];
+	}
+
+	public int[] getEpochDays() {
+		return epochDays;
+	}
+
+
+	/*
+	 * Converte le date allineate in LocalDate, nel formato atteso da DataCollectionAndPlotting.plotData().
+	 */
+	public LocalDate[] getDates() {
+		LocalDate[] dates = new LocalDate[epochDays.length];
+		for (int t = 0; t < epochDays.length; t++) {
+			dates[t] = LocalDate.ofEpochDay(epochDays[t]);
+		}
+		return dates;
+	}
+
+}
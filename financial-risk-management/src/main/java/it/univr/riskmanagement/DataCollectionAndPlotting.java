@@ -1,21 +1,10 @@
 package it.univr.riskmanagement;
 
 import java.io.IOException;
-import java.io.InputStream;
 import java.time.LocalDate;
-import java.time.format.DateTimeFormatter;
-import java.time.format.DateTimeParseException;
-import java.util.ArrayList;
-import java.util.List;
 
 import javax.swing.JFrame;
 
-import org.apache.poi.ss.usermodel.Cell;
-import org.apache.poi.ss.usermodel.CellType;
-import org.apache.poi.ss.usermodel.Row;
-import org.apache.poi.ss.usermodel.Sheet;
-import org.apache.poi.ss.usermodel.Workbook;
-import org.apache.poi.xssf.usermodel.XSSFWorkbook;
 import org.jfree.chart.ChartFactory;
 import org.jfree.chart.ChartPanel;
 import org.jfree.chart.JFreeChart;
@@ -31,94 +20,27 @@ import org.jfree.data.time.TimeSeriesCollection;
 public class DataCollectionAndPlotting {
 
 
-	public static double[] getHistoricalPricesStock1() throws IOException {
-		List<Double> pricesList = new ArrayList<>();
-		
-		// Il primo Stock scelto da noi è Nike
-		try (InputStream is = DataCollectionAndPlotting.class.getResourceAsStream("/NIKE.xlsx");
-		     Workbook workbook = new XSSFWorkbook(is)) {
-
-			Sheet sheet = workbook.getSheetAt(0);
-			int columnIndex = 4;
-
-			for (int i = 1; i <= sheet.getLastRowNum(); i++) {
-				Row row = sheet.getRow(i);
-				if (row == null) continue;
-
-				Cell cell = row.getCell(columnIndex);
-				if (cell != null && cell.getCellType() == CellType.NUMERIC) {
-					pricesList.add(cell.getNumericCellValue());
-				} else if (cell != null && cell.getCellType() == CellType.STRING) {
-					try {
-						pricesList.add(Double.parseDouble(cell.getStringCellValue().replace("$", "")));
-					} catch (NumberFormatException e) {
-						System.out.println("Invalid value at row " + (i + 1));
-					}
-				}
-			}
-		}
+	/*
+	 * I prezzi dei due titoli e le date vengono letti insieme tramite AlignedPriceLoader,
+	 * che allinea le due serie per data mantenendo solo i giorni in cui entrambi i titoli sono quotati.
+	 * Leggendo separatamente prezzi e date, come avveniva in origine, le serie potevano risultare
+	 * disallineate quando i due titoli hanno calendari di contrattazione diversi.
+	 */
+	public static AlignedPrices getAlignedPrices() throws IOException {
+		// Il primo Stock scelto da noi è Nike, il secondo è Novo Nordisk
+		return AlignedPriceLoader.load(AlignedPriceLoader.GapPolicy.DROP, "/NIKE.xlsx", "/NOVO.xlsx");
+	}
 
-		return pricesList.stream().mapToDouble(Double::doubleValue).toArray();
+	public static double[] getHistoricalPricesStock1() throws IOException {
+		return getAlignedPrices().getPrices(0);
 	}
 	
 	public static double[] getHistoricalPricesStock2() throws IOException {
-		List<Double> pricesList = new ArrayList<>();
-
-		// Il secondo Stock scelto da noi è Novo Nordisk
-		try (InputStream is = DataCollectionAndPlotting.class.getResourceAsStream("/NOVO.xlsx");
-		     Workbook workbook = new XSSFWorkbook(is)) {
-
-			Sheet sheet = workbook.getSheetAt(0);
-			int columnIndex = 4;
-
-			for (int i = 1; i <= sheet.getLastRowNum(); i++) {
-				Row row = sheet.getRow(i);
-				if (row == null) continue;
-
-				Cell cell = row.getCell(columnIndex);
-				if (cell != null && cell.getCellType() == CellType.NUMERIC) {
-					pricesList.add(cell.getNumericCellValue());
-				} else if (cell != null && cell.getCellType() == CellType.STRING) {
-					try {
-						pricesList.add(Double.parseDouble(cell.getStringCellValue().replace("$", "")));
-					} catch (NumberFormatException e) {
-						System.out.println("Invalid value at row " + (i + 1));
-					}
-				}
-			}
-		}
-
-		return pricesList.stream().mapToDouble(Double::doubleValue).toArray();
+		return getAlignedPrices().getPrices(1);
 	}
 
 	public static LocalDate[] getDates() throws IOException {
-		List<LocalDate> datesList = new ArrayList<>();
-		DateTimeFormatter formatter = DateTimeFormatter.ofPattern("yyyy-MM-dd"); // Manteniamo lo stesso formato
-
-		try (InputStream is = DataCollectionAndPlotting.class.getResourceAsStream("/NIKE.xlsx");
-		     Workbook workbook = new XSSFWorkbook(is)) {
-
-			Sheet sheet = workbook.getSheetAt(0);
-
-			for (int i = 1; i <= sheet.getLastRowNum(); i++) {
-				Row row = sheet.getRow(i);
-				if (row == null) continue;
-
-				Cell cell = row.getCell(0); // First column = date
-				if (cell != null) {
-					try {
-						String cellValue = cell.getStringCellValue().trim();
-						LocalDate date = LocalDate.parse(cellValue, formatter);
-						datesList.add(date);
-					} catch (DateTimeParseException e) {
-						System.out.println("Invalid date string at row " + (i + 1) + ": " + cell.getStringCellValue());
-					}
-				} else {
-					System.out.println("Empty cell at row " + (i + 1));
-				}
-			}
-		}
-	return datesList.toArray(new LocalDate[0]);
+		return getAlignedPrices().getDates();
 	}
 
 	public static void plotData(LocalDate[] dates, double[] data, String dataType) {
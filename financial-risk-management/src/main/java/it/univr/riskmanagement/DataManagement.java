@@ -20,17 +20,40 @@ public class DataManagement {
 	/*
 	 * Costruttore della classe DataManagement:
 	 * Carica i prezzi storici dei due titoli e le date corrispondenti dai file Excel,
-	 * utilizzando i metodi della classe DataCollectionAndPlotting.
-	 * Viene inoltre lanciata un'eccezione nel caso in cui i due titoli non abbiano
-	 * lo stesso numero di osservazioni, per garantire la coerenza dei dati.
+	 * utilizzando il metodo getAlignedPrices() della classe DataCollectionAndPlotting.
+	 * I due titoli possono avere calendari di contrattazione diversi: le serie vengono quindi
+	 * allineate per data, mantenendo soltanto i giorni in cui entrambi i titoli sono quotati,
+	 * così che prezzi e date siano sempre coerenti tra loro.
 	 */
 	public DataManagement() throws IOException {
-		this.pricesStock1 = DataCollectionAndPlotting.getHistoricalPricesStock1();
-		this.pricesStock2 = DataCollectionAndPlotting.getHistoricalPricesStock2();
-		this.dates = DataCollectionAndPlotting.getDates();
-		if (pricesStock1.length != pricesStock2.length) {
-			throw new IOException ("The prices of the 2 stocks must be equal!");
+		this(DataCollectionAndPlotting.getAlignedPrices());
+	}
+	
+	public DataManagement(AlignedPrices alignedPrices) {
+		if (alignedPrices.getNumberOfInstruments() != 2) {
+			throw new IllegalArgumentException("The portfolio must contain exactly 2 stocks!");
+		}
+		// Servono almeno due date comuni per calcolare un rendimento
+		if (alignedPrices.getNumberOfObservations() < 2) {
+			throw new IllegalArgumentException("The 2 stocks must have at least 2 common dates, found "
+					+ alignedPrices.getNumberOfObservations() + "!");
 		}
+		this.pricesStock1 = alignedPrices.getPrices(0);
+		this.pricesStock2 = alignedPrices.getPrices(1);
+		this.dates = alignedPrices.getDates();
+	}
+	
+	
+	public double[] getPricesStock1() {
+		return pricesStock1;
+	}
+	
+	public double[] getPricesStock2() {
+		return pricesStock2;
+	}
+	
+	public LocalDate[] getDates() {
+		return dates;
 	}
 	
 	
@@ -0,0 +1,219 @@
+package it.univr.riskmanagement;
+
+import java.util.Arrays;
+import java.util.stream.IntStream;
+
+
+/*
+ * Questa classe calcola il VaR e l'ES storici iterati per una griglia di window length e di livelli alpha.
+ * I metodi iterateHistoricalVaR e iterateHistoricalES di RiskMeasures ricopiano e riordinano ogni finestra
+ * da zero, e vanno richiamati separatamente per ogni combinazione di parametri.
+ * Qui invece, per ogni window length, la finestra mobile viene mantenuta in una struttura di rango
+ * (segment tree) che viene aggiornata incrementalmente: ad ogni passo si rimuove l'osservazione più vecchia
+ * e si aggiunge la successiva in tempo logaritmico, e tutti i livelli alpha vengono letti dalla stessa struttura.
+ * Le diverse window length vengono elaborate in parallelo.
+ * I risultati sono array tridimensionali indicizzati come [window length][alpha][tempo], e per ogni
+ * combinazione coincidono con quelli di RiskMeasures (a meno dell'ordine di somma nell'ES).
+ */
+public class HistoricalRiskGrid {
+
+
+	private final int[] windowLengths;
+	private final double[] alphas;
+	private final double[][][] iteratedHVaR; // VaR storici [window length][alpha][tempo]
+	private final double[][][] iteratedHES; // ES storici [window length][alpha][tempo]
+
+
+	private HistoricalRiskGrid(int[] windowLengths, double[] alphas, double[][][] iteratedHVaR, double[][][] iteratedHES) {
+		this.windowLengths = windowLengths;
+		this.alphas = alphas;
+		this.iteratedHVaR = iteratedHVaR;
+		this.iteratedHES = iteratedHES;
+	}
+
+
+	/*
+	 * Questo metodo calcola l'intera griglia.
+	 * Per prima cosa ogni rendimento riceve un rango univoco nella serie ordinata (i valori uguali
+	 * ricevono ranghi consecutivi), calcolato una sola volta e condiviso da tutte le window length.
+	 * Come in iterateHistoricalVaR, per una finestra di lunghezza w si ottengono returns.length - w valori.
+	 */
+	public static HistoricalRiskGrid compute(double[] returns, int[] windowLengths, double[] alphas) throws IllegalArgumentException {
+		for (int windowLength : windowLengths) {
+			if (windowLength <= 0) {
+				throw new IllegalArgumentException("The window length must be positive");
+			}
+			if (returns.length < windowLength) {
+				throw new IllegalArgumentException("The window length is longer than the return series");
+			}
+		}
+		for (double alpha : alphas) {
+			if (!(alpha > 0 && alpha < 1)) {
+				throw new IllegalArgumentException("The confidence level must be between 0 and 1");
+			}
+		}
+
+		double[] returnsSorted = Arrays.copyOf(returns, returns.length);
+		Arrays.sort(returnsSorted);
+		int[] ranks = new int[returns.length];
+		int[] ties = new int[returns.length];
+		for (int i = 0; i < returns.length; i++) {
+			int firstRank = lowerBound(returnsSorted, returns[i]);
+			ranks[i] = firstRank + ties[firstRank]++;
+		}
+
+		double[][][] iteratedHVaR = new double[windowLengths.length][][];
+		double[][][] iteratedHES = new double[windowLengths.length][][];
+		IntStream.range(0, windowLengths.length).parallel().forEach(w -> {
+			double[][][] result = iterateWindow(returns, returnsSorted, ranks, windowLengths[w], alphas);
+			iteratedHVaR[w] = result[0];
+			iteratedHES[w] = result[1];
+		});
+		return new HistoricalRiskGrid(windowLengths.clone(), alphas.clone(), iteratedHVaR, iteratedHES);
+	}
+
+
+	/*
+	 * Scorre la finestra mobile per una singola window length.
+	 * Il segment tree contiene, per ogni rango, il numero di osservazioni presenti (0 o 1) e la loro somma:
+	 * una sola discesa nell'albero trova la k-esima osservazione più piccola della finestra (da cui il VaR)
+	 * e la somma delle k-1 osservazioni precedenti (da cui la prima parte dell'ES).
+	 * Le formule e l'indice k = (int)(n*alpha) + 1 sono gli stessi di computeHistoricalVaR e computeHistoricalES.
+	 */
+	private static double[][][] iterateWindow(double[] returns, double[] returnsSorted, int[] ranks, int windowLength, double[] alphas) {
+		int numberOfWindows = returns.length - windowLength;
+		double[][] iteratedHVaR = new double[alphas.length][numberOfWindows];
+		double[][] iteratedHES = new double[alphas.length][numberOfWindows];
+
+		int[] k = new int[alphas.length];
+		for (int a = 0; a < alphas.length; a++) {
+			k[a] = (int) (windowLength * alphas[a]) + 1;
+		}
+
+		RankTree window = new RankTree(returns.length);
+		for (int i = 0; i < windowLength; i++) {
+			window.update(ranks[i], true, returns[i]);
+		}
+		for (int i = 0; i < numberOfWindows; i++) {
+			for (int a = 0; a < alphas.length; a++) {
+				double alpha = alphas[a];
+				int rank = window.select(k[a]);
+				double kthReturn = returnsSorted[rank];
+				double ES1 = - window.selectedSum / (windowLength * alpha);
+				double ES2 = - (1.0 / alpha) * kthReturn * (alpha - ((double) (k[a] - 1) / windowLength));
+				iteratedHVaR[a][i] = - kthReturn;
+				iteratedHES[a][i] = ES1 + ES2;
+			}
+			window.update(ranks[i], false, 0.0);
+			window.update(ranks[i + windowLength], true, returns[i + windowLength]);
+		}
+		return new double[][][] { iteratedHVaR, iteratedHES };
+	}
+
+
+	private static int lowerBound(double[] sorted, double value) {
+		int low = 0;
+		int high = sorted.length;
+		while (low < high) {
+			int mid = (low + high) >>> 1;
+			if (Double.compare(sorted[mid], value) < 0) {
+				low = mid + 1;
+			} else {
+				high = mid;
+			}
+		}
+		return low;
+	}
+
+
+	/*
+	 * Segment tree sui ranghi dei rendimenti: conta le osservazioni presenti nella finestra e ne somma i valori.
+	 * Le foglie sono i ranghi e ogni nodo interno viene ricalcolato come somma dei due figli ad ogni aggiornamento,
+	 * senza sottrarre i valori che escono dalla finestra: le somme dipendono quindi solo dalle osservazioni
+	 * presenti, e gli errori di arrotondamento non si accumulano lungo la serie (ad esempio quando la scala
+	 * dei rendimenti cambia di molti ordini di grandezza).
+	 */
+	private static class RankTree {
+
+		private final int leaves;
+		private final int[] counts;
+		private final double[] sums;
+		private double selectedSum; // Somma delle osservazioni più piccole dell'ultima selezionata
+
+		RankTree(int size) {
+			int power = 1;
+			while (power < size) {
+				power <<= 1;
+			}
+			leaves = power;
+			counts = new int[2 * leaves];
+			sums = new double[2 * leaves];
+		}
+
+		void update(int rank, boolean present, double value) {
+			int i = leaves + rank;
+			counts[i] = present ? 1 : 0;
+			sums[i] = present ? value : 0.0;
+			for (i >>= 1; i > 0; i >>= 1) {
+				counts[i] = counts[2 * i] + counts[2 * i + 1];
+				sums[i] = sums[2 * i] + sums[2 * i + 1];
+			}
+		}
+
+		/*
+		 * Restituisce il rango della k-esima osservazione più piccola presente nella finestra.
+		 */
+		int select(int k) {
+			int i = 1;
+			int remaining = k;
+			double sum = 0.0;
+			while (i < leaves) {
+				int left = 2 * i;
+				if (counts[left] >= remaining) {
+					i = left;
+				} else {
+					remaining -= counts[left];
+					sum += sums[left];
+					i = left + 1;
+				}
+			}
+			selectedSum = sum;
+			return i - leaves;
+		}
+	}
+
+
+	public int[] getWindowLengths() {
+		return windowLengths.clone();
+	}
+
+	public double[] getAlphas() {
+		return alphas.clone();
+	}
+
+	/*
+	 * I risultati non vengono copiati, come in AlignedPrices.getPrices: chi li riceve non deve modificarli.
+	 */
+	public double[][][] getIteratedHistoricalVaR() {
+		return iteratedHVaR;
+	}
+
+	public double[][][] getIteratedHistoricalES() {
+		return iteratedHES;
+	}
+
+
+	/*
+	 * Restituiscono la serie dei VaR (o degli ES) per una singola combinazione di parametri,
+	 * nello stesso formato di RiskMeasures.iterateHistoricalVaR e RiskMeasures.iterateHistoricalES.
+	 * Anche questi array non vengono copiati e non devono essere modificati.
+	 */
+	public double[] getIteratedHistoricalVaR(int windowIndex, int alphaIndex) {
+		return iteratedHVaR[windowIndex][alphaIndex];
+	}
+
+	public double[] getIteratedHistoricalES(int windowIndex, int alphaIndex) {
+		return iteratedHES[windowIndex][alphaIndex];
+	}
+
+}
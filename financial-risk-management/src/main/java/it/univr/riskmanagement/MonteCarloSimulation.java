@@ -4,6 +4,7 @@ import java.util.Arrays;
 import org.apache.commons.math3.distribution.NormalDistribution;
 import java.io.IOException;
 import java.time.LocalDate;
+import java.util.concurrent.ThreadLocalRandom;
 //import org.apache.commons.math3.distribution.NormalDistribution;
 
 
@@ -22,7 +23,6 @@ public class MonteCarloSimulation {
 	// Questi vettori serviranno per gestire le simulazioni
 	private double[] logReturnSimulated1 = new double [numberOfSimulation];
 	private double[] logReturnSimulated2 = new double [numberOfSimulation];
-	private double[] sampleQuantiles = new double [numberOfSimulation];
 	private double[] portfolioLogReturnsSimulated = new double [numberOfSimulation];
 	private double[] quantileLevel1 = new double [numberOfSimulation];
 	private double[] quantileLevel2 = new double [numberOfSimulation];
@@ -43,23 +43,25 @@ public class MonteCarloSimulation {
 	
 	
 	// oggetto che ci permette di gestire i dati
-	DataManagement data = new DataManagement();
+	DataManagement data;
 	
 	
 	
 	/*
 	 * Costruttore della classe MonteCarloSimulation:
-	 * Carica i prezzi storici dei due titoli dai file Excel,
-	 * utilizzando i metodi della classe DataCollectionAndPlotting.
-	 * Viene inoltre lanciata un'eccezione nel caso in cui i due titoli non abbiano
-	 * lo stesso numero di osservazioni, per garantire la coerenza dei dati.
+	 * Utilizza i prezzi storici dei due titoli già caricati e allineati per data
+	 * dall'oggetto DataManagement, evitando una seconda lettura dei file Excel.
+	 * Il secondo costruttore permette di condividere lo stesso oggetto DataManagement
+	 * tra più simulazioni, come avviene in RiskService.
 	 */
 	public MonteCarloSimulation() throws IOException {
-		this.pricesStock1 = DataCollectionAndPlotting.getHistoricalPricesStock1();
-		this.pricesStock2 = DataCollectionAndPlotting.getHistoricalPricesStock2();
-		if (pricesStock1.length != pricesStock2.length) {
-			throw new IOException ("The prices of the 2 stocks must be equal!");
-		}
+		this(new DataManagement());
+	}
+	
+	public MonteCarloSimulation(DataManagement data) {
+		this.data = data;
+		this.pricesStock1 = data.getPricesStock1();
+		this.pricesStock2 = data.getPricesStock2();
 	}
 	
 	
@@ -71,8 +73,10 @@ public class MonteCarloSimulation {
 	 * NormalDistribution di parametri mu e sigma per andare a generare direttamente i quantili
 	 * di una distribuzione normale tramite il metodo inverseCumulativeProbability().
 	 * Per mantenere coerenza di notazione vista in classe, abbiamo proceduto con il primo metodo.
+	 * Le realizzazioni vengono scritte nel vettore sampleQuantiles ricevuto in input, in modo che
+	 * le simulazioni dei due titoli restino in due vettori distinti.
 	 */
-	private double[] normQuant (double[] logReturns, double[] quantileLevel) {
+	private double[] normQuant (double[] logReturns, double[] quantileLevel, double[] sampleQuantiles) {
 		NormalDistribution normal = new NormalDistribution();
 		double mu = data.getExpectedValue(logReturns);
 		double sigma = data.getStdDeviation(logReturns);
@@ -93,14 +97,22 @@ public class MonteCarloSimulation {
 	 * per andare ad ottenere il rendimento assoluto del portafoglio
 	 */
 	private double[] getPortfolioLogReturnsSimulated (double[] logReturns1, double[] logReturns2, double budget1, double budget2) {
+		simulateLogReturns(logReturns1, logReturns2);
+		return aggregateSimulatedLogReturns(budget1, budget2);
+	}
+	
+	private void simulateLogReturns (double[] logReturns1, double[] logReturns2) {
 		for (int i = 0; i < numberOfSimulation; i++) {
-			// generazione di due numeri casuali indipendenti tra 0 e 1
-		    quantileLevel1[i] = Math.random();
-		    quantileLevel2[i] = Math.random();
+			// generazione di due numeri casuali indipendenti tra 0 e 1 (generatore locale al thread)
+		    quantileLevel1[i] = ThreadLocalRandom.current().nextDouble();
+		    quantileLevel2[i] = ThreadLocalRandom.current().nextDouble();
 		}
 		// vengono generati i rendimenti logaritmici simulati
-		logReturnSimulated1 = normQuant(logReturns1, quantileLevel1);
-		logReturnSimulated2 = normQuant(logReturns2, quantileLevel2);
+		logReturnSimulated1 = normQuant(logReturns1, quantileLevel1, logReturnSimulated1);
+		logReturnSimulated2 = normQuant(logReturns2, quantileLevel2, logReturnSimulated2);
+	}
+	
+	private double[] aggregateSimulatedLogReturns (double budget1, double budget2) {
 		for (int i = 0; i < numberOfSimulation; i++) {
 			// viene utilizzata la formula per l'aggregazione per i due rendimenti logaritmici
 			portfolioLogReturnsSimulated[i] = budget1*(Math.exp(logReturnSimulated1[i])-1) + budget2*(Math.exp(logReturnSimulated2[i])-1);
@@ -172,6 +184,40 @@ public class MonteCarloSimulation {
 	}
 	
 	
+	/*
+	 * Questo metodo calcola con un'unica simulazione le misure di rischio iterate richieste da più
+	 * utenti che condividono la stessa window length (ad esempio le richieste raggruppate da RiskService).
+	 * I rendimenti logaritmici simulati dipendono solo dalla finestra dei prezzi, e vengono quindi generati
+	 * una sola volta per ogni passo; i budget entrano solo nell'aggregazione del portafoglio.
+	 * La richiesta r-esima è descritta da budgets1[r], budgets2[r], alphas[r] ed expectedShortfall[r]
+	 * (true per l'ES, false per il VaR), e il risultato r-esimo ha lo stesso formato di iteratedSimulatedVaR.
+	 * Le richieste consecutive con gli stessi budget riutilizzano lo stesso campione ordinato.
+	 */
+	public double[][] iteratedSimulatedRiskMeasures (int windowLength, double[] budgets1, double[] budgets2,
+			double[] alphas, boolean[] expectedShortfall) throws  IllegalArgumentException{
+		if (pricesStock1.length-1 < windowLength) {
+	        throw new IllegalArgumentException("The window length is longer than the return series");
+	    }
+		int numberOfRequests = alphas.length;
+		double[][] iteratedSimulatedRiskMeasures = new double [numberOfRequests][pricesStock1.length - windowLength];
+		for (int i = 0; i < pricesStock1.length - windowLength; i++) {
+			double[] logReturnsStock1 = data.getLogReturns(Arrays.copyOfRange(pricesStock1, i, i+windowLength));
+			double[] logReturnsStock2 = data.getLogReturns(Arrays.copyOfRange(pricesStock2, i, i+windowLength));
+			simulateLogReturns(logReturnsStock1, logReturnsStock2);
+			for (int r = 0; r < numberOfRequests; r++) {
+				if (r == 0 || budgets1[r] != budgets1[r-1] || budgets2[r] != budgets2[r-1]) {
+					aggregateSimulatedLogReturns(budgets1[r], budgets2[r]);
+					Arrays.sort(portfolioLogReturnsSimulated);
+				}
+				iteratedSimulatedRiskMeasures[r][i] = expectedShortfall[r]
+						? RiskMeasures.computeHistoricalESFromSorted(portfolioLogReturnsSimulated, alphas[r], numberOfSimulation)
+						: RiskMeasures.computeHistoricalVaRFromSorted(portfolioLogReturnsSimulated, alphas[r], numberOfSimulation);
+			}
+		}
+		return iteratedSimulatedRiskMeasures;
+	}
+	
+	
 	/*
 	 * I due metodi sottostanti permettono di visualizzare graficamente l’evoluzione del VaR
 	 * e dell’ES storici, partendo dalle simulazioni, calcolati con una finestra mobile.
@@ -23,13 +23,22 @@ public class RiskMeasures {
 	 * rappresenta la perdita potenziale massima attesa.
 	 */
 	public static double computeHistoricalVaR(double[] returns, double alphaVAR, int n) {
+		double[] returnsSorted = Arrays.copyOf(returns, returns.length);
+		Arrays.sort(returnsSorted);
+		return computeHistoricalVaRFromSorted(returnsSorted, alphaVAR, n);
+	}
+	
+	
+	/*
+	 * Stesso calcolo di computeHistoricalVaR su un array di rendimenti già ordinato,
+	 * così che chi calcola più misure sullo stesso campione lo ordini una sola volta.
+	 */
+	static double computeHistoricalVaRFromSorted(double[] returnsSorted, double alphaVAR, int n) {
 		/*
 		 *  k rappresenta l'indice dell'osservazione corrispondente al quantile alpha 
 		 *  all'interno di una serie ordinata di n osservazioni.
 		 */
 		int k = (int) (n * alphaVAR) + 1;	
-		double[] returnsSorted = Arrays.copyOf(returns, returns.length);
-		Arrays.sort(returnsSorted);
 		double VAR = - returnsSorted[k-1];
 		return VAR; 
 	}
@@ -45,9 +54,13 @@ public class RiskMeasures {
 	 * al superamento del VaR al livello alpha.
 	 */
 	public static double computeHistoricalES(double[] returns, double alphaES, int n) {
-		int k = (int) (n * alphaES) + 1;
 		double[] returnsSorted = Arrays.copyOf(returns, returns.length);
 		Arrays.sort(returnsSorted);
+		return computeHistoricalESFromSorted(returnsSorted, alphaES, n);
+	}
+	
+	static double computeHistoricalESFromSorted(double[] returnsSorted, double alphaES, int n) {
+		int k = (int) (n * alphaES) + 1;
 		double ES1 = 0.0;
 		double ES2;
 		for (int i = 0; i < k-1; i++) {
@@ -0,0 +1,392 @@
+package it.univr.riskmanagement;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+
+/*
+ * Questa classe avvia un servizio locale che carica i prezzi una sola volta e risponde a richieste HTTP
+ * di VaR ed ES iterati, evitando di rieseguire l'intero programma Tests per ogni calcolo.
+ * Gli endpoint sono /var e /es, con i parametri:
+ *   budget1, budget2 (default 600 e 400), window (default 250), alpha (default 0.01 per il VaR e 0.025 per l'ES)
+ *   e method, che può essere "historical" (default) oppure "montecarlo".
+ * Esempio: http://localhost:8080/es?budget1=600&budget2=400&window=500&alpha=0.025&method=montecarlo
+ * La risposta è un oggetto JSON con le date e i valori della misura di rischio.
+ *
+ * Le richieste vengono gestite su virtual thread quando la JVM li mette a disposizione (Java 21 o successive),
+ * altrimenti su un pool di thread classico. Le simulazioni Monte Carlo sono costose: la prima richiesta
+ * per una window length avvia la simulazione dopo un breve intervallo di raccolta (batchDelayMillis),
+ * così che le richieste arrivate insieme vengano soddisfatte da un'unica simulazione
+ * (MonteCarloSimulation.iteratedSimulatedRiskMeasures). Le richieste che arrivano mentre una simulazione
+ * è in corso vengono raggruppate nella simulazione successiva.
+ * Avvio: RiskService [porta] [intervallo di raccolta in millisecondi].
+ * Il metodo stop() arresta il server e i thread del servizio, così che un servizio incorporato
+ * in un altro programma non lasci thread attivi.
+ */
+public class RiskService {
+
+
+	private static final int DEFAULT_PORT = 8080;
+	private static final long DEFAULT_BATCH_DELAY_MILLIS = 50;
+	private static final long DEFAULT_TIMEOUT_SECONDS = 600;
+
+
+	private final DataManagement data; // Prezzi e date caricati una sola volta all'avvio
+	private final ScheduledExecutorService simulationExecutor; // Thread su cui vengono eseguite le simulazioni raggruppate
+	private final long batchDelayMillis; // Attesa prima di avviare una simulazione, per raccogliere le richieste
+	private final long timeoutSeconds; // Tempo massimo di attesa di una richiesta Monte Carlo
+	private HttpServer server; // Server avviato da start(), null se il servizio non è mai stato avviato
+	private ExecutorService requestExecutor; // Thread su cui vengono gestite le richieste HTTP
+	private boolean stopped; // Vero dopo stop(): le nuove richieste Monte Carlo vengono rifiutate
+
+	// Richieste Monte Carlo in attesa e window length con una simulazione in corso, protette da this
+	private final Map<Integer, List<PendingRequest>> pendingRequests = new HashMap<>();
+	private final Set<Integer> runningWindows = new HashSet<>();
+
+
+	public RiskService(DataManagement data) {
+		this(data, DEFAULT_BATCH_DELAY_MILLIS, DEFAULT_TIMEOUT_SECONDS);
+	}
+
+	public RiskService(DataManagement data, long batchDelayMillis, long timeoutSeconds) {
+		if (batchDelayMillis < 0 || timeoutSeconds <= 0) {
+			throw new IllegalArgumentException("The batch delay must be non-negative and the timeout positive");
+		}
+		this.data = data;
+		this.batchDelayMillis = batchDelayMillis;
+		this.timeoutSeconds = timeoutSeconds;
+		this.simulationExecutor = Executors.newScheduledThreadPool(Runtime.getRuntime().availableProcessors());
+	}
+
+
+	public static void main(String[] args) throws IOException {
+		int port = args.length > 0 ? Integer.parseInt(args[0]) : DEFAULT_PORT;
+		long batchDelayMillis = args.length > 1 ? Long.parseLong(args[1]) : DEFAULT_BATCH_DELAY_MILLIS;
+		RiskService service = new RiskService(new DataManagement(), batchDelayMillis, DEFAULT_TIMEOUT_SECONDS);
+		HttpServer server = service.start(port);
+		System.out.println("Risk service listening on http://localhost:" + server.getAddress().getPort());
+	}
+
+
+	/*
+	 * Avvia il server HTTP sull'interfaccia locale e registra i due endpoint.
+	 */
+	public synchronized HttpServer start(int port) throws IOException {
+		if (stopped || server != null) {
+			throw new IllegalStateException("The service has already been started");
+		}
+		server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 0);
+		server.createContext("/var", exchange -> handle(exchange, false));
+		server.createContext("/es", exchange -> handle(exchange, true));
+		requestExecutor = newRequestExecutor();
+		server.setExecutor(requestExecutor);
+		server.start();
+		return server;
+	}
+
+
+	/*
+	 * Arresta il server HTTP e i due pool di thread. Le richieste Monte Carlo ancora in attesa
+	 * terminano con un errore invece di attendere fino al timeout. Un servizio fermato non può
+	 * essere riavviato: per un nuovo avvio serve un nuovo oggetto RiskService.
+	 */
+	public void stop() {
+		HttpServer runningServer;
+		ExecutorService runningRequestExecutor;
+		synchronized (this) {
+			if (stopped) {
+				return;
+			}
+			stopped = true;
+			runningServer = server;
+			runningRequestExecutor = requestExecutor;
+			IllegalStateException stoppedException = new IllegalStateException("The service has been stopped");
+			for (List<PendingRequest> batch : pendingRequests.values()) {
+				for (PendingRequest request : batch) {
+					request.result.completeExceptionally(stoppedException);
+				}
+			}
+			pendingRequests.clear();
+		}
+		// server.stop() va chiamato fuori dal blocco sincronizzato, perché attende la fine degli scambi in corso
+		if (runningServer != null) {
+			runningServer.stop(0);
+		}
+		if (runningRequestExecutor != null) {
+			runningRequestExecutor.shutdownNow();
+		}
+		simulationExecutor.shutdownNow();
+	}
+
+
+	/*
+	 * Il progetto è compilato per Java 17, dove i virtual thread non esistono ancora:
+	 * il metodo Executors.newVirtualThreadPerTaskExecutor() viene quindi cercato a runtime.
+	 */
+	private static ExecutorService newRequestExecutor() {
+		try {
+			return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+		} catch (ReflectiveOperationException e) {
+			return Executors.newCachedThreadPool();
+		}
+	}
+
+
+	private void handle(HttpExchange exchange, boolean expectedShortfall) throws IOException {
+		try {
+			if (!"GET".equals(exchange.getRequestMethod())) {
+				send(exchange, 405, "{\"error\":\"Only GET requests are supported\"}");
+				return;
+			}
+			// i context di HttpServer corrispondono per prefisso: /var/foo non deve essere trattato come /var
+			if (!exchange.getRequestURI().getPath().equals(exchange.getHttpContext().getPath())) {
+				send(exchange, 404, errorJson("Unknown path: " + exchange.getRequestURI().getPath()));
+				return;
+			}
+			Map<String, String> parameters = parseQuery(exchange.getRequestURI().getRawQuery());
+			double budget1 = Double.parseDouble(parameters.getOrDefault("budget1", "600"));
+			double budget2 = Double.parseDouble(parameters.getOrDefault("budget2", "400"));
+			int windowLength = Integer.parseInt(parameters.getOrDefault("window", "250"));
+			double alpha = Double.parseDouble(parameters.getOrDefault("alpha", expectedShortfall ? "0.025" : "0.01"));
+			String method = parameters.getOrDefault("method", "historical");
+
+			if (!(alpha > 0 && alpha < 1)) {
+				throw new IllegalArgumentException("The confidence level must be between 0 and 1");
+			}
+			if (windowLength <= 0) {
+				throw new IllegalArgumentException("The window length must be positive");
+			}
+			if (!Double.isFinite(budget1) || !Double.isFinite(budget2)) {
+				throw new IllegalArgumentException("The budgets must be finite numbers");
+			}
+
+			double[] values;
+			int firstDate;
+			if ("historical".equals(method)) {
+				double[] returns = data.getPortfolioReturns(budget1, budget2);
+				values = expectedShortfall
+						? RiskMeasures.iterateHistoricalES(returns, alpha, windowLength)
+						: RiskMeasures.iterateHistoricalVaR(returns, alpha, windowLength);
+				// come in plotIterateHistoricalVaR, la prima misura si riferisce al giorno windowLength+1
+				firstDate = windowLength + 1;
+			} else if ("montecarlo".equals(method)) {
+				// con un solo prezzo per finestra non ci sono log-rendimenti da cui stimare media e deviazione standard
+				if (windowLength < 2) {
+					throw new IllegalArgumentException("The window length must be at least 2 for the Monte Carlo method");
+				}
+				if (data.getPricesStock1().length - 1 < windowLength) {
+					throw new IllegalArgumentException("The window length is longer than the return series");
+				}
+				values = submitSimulation(windowLength, new PendingRequest(budget1, budget2, alpha, expectedShortfall))
+						.get(timeoutSeconds, TimeUnit.SECONDS);
+				// la finestra dei prezzi [i, i+windowLength) produce la misura del giorno i+windowLength
+				firstDate = windowLength;
+			} else {
+				throw new IllegalArgumentException("Unknown method: " + method);
+			}
+			send(exchange, 200, toJson(expectedShortfall ? "ES" : "VaR", method, windowLength, alpha, firstDate, values));
+		} catch (IllegalArgumentException e) {
+			send(exchange, 400, errorJson(e.getMessage()));
+		} catch (ExecutionException e) {
+			send(exchange, 500, errorJson(String.valueOf(e.getCause())));
+		} catch (TimeoutException e) {
+			send(exchange, 503, errorJson("The simulation did not complete within " + timeoutSeconds + " seconds"));
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			send(exchange, 500, errorJson("Interrupted"));
+		} finally {
+			exchange.close();
+		}
+	}
+
+
+	/*
+	 * Accoda una richiesta Monte Carlo. Se per quella window length non c'è una simulazione in corso,
+	 * ne viene programmata una dopo l'intervallo di raccolta; altrimenti la richiesta attende
+	 * e verrà servita dal gruppo successivo.
+	 */
+	private CompletableFuture<double[]> submitSimulation(int windowLength, PendingRequest request) {
+		synchronized (this) {
+			if (stopped) {
+				request.result.completeExceptionally(new IllegalStateException("The service has been stopped"));
+				return request.result;
+			}
+			pendingRequests.computeIfAbsent(windowLength, w -> new ArrayList<>()).add(request);
+			if (runningWindows.add(windowLength)) {
+				scheduleSimulations(windowLength);
+			}
+		}
+		return request.result;
+	}
+
+	private void scheduleSimulations(int windowLength) {
+		simulationExecutor.schedule(() -> runSimulations(windowLength), batchDelayMillis, TimeUnit.MILLISECONDS);
+	}
+
+	/*
+	 * Esegue i gruppi di richieste finché ce ne sono in attesa. Il blocco finally libera la window length
+	 * anche se una simulazione termina con un errore e, se nel frattempo sono arrivate altre richieste,
+	 * programma una nuova esecuzione, così che nessuna richiesta resti senza un thread che la serva.
+	 */
+	private void runSimulations(int windowLength) {
+		try {
+			while (true) {
+				List<PendingRequest> batch;
+				synchronized (this) {
+					batch = pendingRequests.remove(windowLength);
+				}
+				if (batch == null) {
+					return;
+				}
+				runBatch(windowLength, batch);
+			}
+		} finally {
+			synchronized (this) {
+				runningWindows.remove(windowLength);
+				if (!stopped && pendingRequests.containsKey(windowLength)) {
+					runningWindows.add(windowLength);
+					scheduleSimulations(windowLength);
+				}
+			}
+		}
+	}
+
+
+	/*
+	 * Esegue una simulazione per tutte le richieste del gruppo. Le richieste vengono ordinate per budget
+	 * così che quelle con lo stesso portafoglio condividano il campione simulato ordinato.
+	 * Ogni gruppo usa un proprio oggetto MonteCarloSimulation, perché i vettori delle simulazioni
+	 * sono campi dell'oggetto e non possono essere condivisi tra thread.
+	 */
+	private void runBatch(int windowLength, List<PendingRequest> batch) {
+		batch.sort(Comparator.comparingDouble((PendingRequest r) -> r.budget1).thenComparingDouble(r -> r.budget2));
+		int size = batch.size();
+		double[] budgets1 = new double[size];
+		double[] budgets2 = new double[size];
+		double[] alphas = new double[size];
+		boolean[] expectedShortfall = new boolean[size];
+		for (int r = 0; r < size; r++) {
+			PendingRequest request = batch.get(r);
+			budgets1[r] = request.budget1;
+			budgets2[r] = request.budget2;
+			alphas[r] = request.alpha;
+			expectedShortfall[r] = request.expectedShortfall;
+		}
+		try {
+			double[][] results = new MonteCarloSimulation(data)
+					.iteratedSimulatedRiskMeasures(windowLength, budgets1, budgets2, alphas, expectedShortfall);
+			for (int r = 0; r < size; r++) {
+				batch.get(r).result.complete(results[r]);
+			}
+		} catch (Throwable e) {
+			// anche in caso di Error (ad esempio OutOfMemoryError) le richieste del gruppo ricevono una risposta
+			for (PendingRequest request : batch) {
+				request.result.completeExceptionally(e);
+			}
+			if (e instanceof Error) {
+				throw (Error) e;
+			}
+		}
+	}
+
+
+	private static Map<String, String> parseQuery(String query) {
+		Map<String, String> parameters = new HashMap<>();
+		if (query == null || query.isEmpty()) {
+			return parameters;
+		}
+		for (String pair : query.split("&")) {
+			int separator = pair.indexOf('=');
+			if (separator > 0) {
+				parameters.put(URLDecoder.decode(pair.substring(0, separator), StandardCharsets.UTF_8),
+						URLDecoder.decode(pair.substring(separator + 1), StandardCharsets.UTF_8));
+			}
+		}
+		return parameters;
+	}
+
+	private String toJson(String measure, String method, int windowLength, double alpha, int firstDate, double[] values) {
+		LocalDate[] dates = data.getDates();
+		StringBuilder json = new StringBuilder(32 * values.length + 128);
+		json.append("{\"measure\":\"").append(measure)
+			.append("\",\"method\":\"").append(method)
+			.append("\",\"window\":").append(windowLength)
+			.append(",\"alpha\":").append(alpha)
+			.append(",\"dates\":[");
+		for (int i = 0; i < values.length; i++) {
+			if (i > 0) {
+				json.append(',');
+			}
+			json.append('"').append(dates[firstDate + i]).append('"');
+		}
+		json.append("],\"values\":[");
+		for (int i = 0; i < values.length; i++) {
+			if (i > 0) {
+				json.append(',');
+			}
+			// JSON non ammette NaN e infinito
+			if (Double.isFinite(values[i])) {
+				json.append(values[i]);
+			} else {
+				json.append("null");
+			}
+		}
+		return json.append("]}").toString();
+	}
+
+	private static String errorJson(String message) {
+		return "{\"error\":\"" + String.valueOf(message).replace("\\", "\\\\").replace("\"", "\\\"") + "\"}";
+	}
+
+	private static void send(HttpExchange exchange, int status, String body) throws IOException {
+		byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+		exchange.getResponseHeaders().set("Content-Type", "application/json; charset=utf-8");
+		exchange.sendResponseHeaders(status, bytes.length);
+		try (OutputStream os = exchange.getResponseBody()) {
+			os.write(bytes);
+		}
+	}
+
+
+	/*
+	 * Richiesta Monte Carlo in attesa di essere inclusa in una simulazione.
+	 */
+	private static class PendingRequest {
+
+		private final double budget1;
+		private final double budget2;
+		private final double alpha;
+		private final boolean expectedShortfall;
+		private final CompletableFuture<double[]> result = new CompletableFuture<>();
+
+		PendingRequest(double budget1, double budget2, double alpha, boolean expectedShortfall) {
+			this.budget1 = budget1;
+			this.budget2 = budget2;
+			this.alpha = alpha;
+			this.expectedShortfall = expectedShortfall;
+		}
+	}
+
+}
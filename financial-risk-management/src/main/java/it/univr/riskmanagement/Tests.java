@@ -3,6 +3,7 @@ package it.univr.riskmanagement;
 import java.io.IOException;
 import java.time.LocalDate;
 import java.util.Arrays;
+import java.util.Random;
 
 
 /*
@@ -16,6 +17,13 @@ public class Tests {
 		DataManagement tester = new DataManagement();
 		
 		
+		/*
+		 * Verifichiamo l'allineamento per data di AlignedPriceLoader su due calendari sfasati,
+		 * per entrambe le politiche di gestione dei buchi.
+		 */
+		checkAlignedPriceLoader();
+		
+		
 		tester.plotPricesStock1(); // Plottiamo i prezzi dello stock 1
 		tester.plotPricesStock2(); // Plottiamo i prezzi dello stock 2
 		
@@ -63,11 +71,33 @@ public class Tests {
 		System.out.println();
 	
 		
+		/*
+		 * Calcoliamo VaR ed ES per più window length e livelli alpha in un'unica passata con HistoricalRiskGrid,
+		 * verificando che i risultati coincidano con quelli dei metodi di RiskMeasures.
+		 * Il controllo viene ripetuto su una serie corta con valori ripetuti e zeri con segno, e su una serie
+		 * lunga la cui scala passa da circa 1e9 a circa 1e-3, che metterebbe in evidenza eventuali errori
+		 * di arrotondamento accumulati nelle somme della finestra mobile.
+		 */
+		compareHistoricalRiskGrid(returns, new int[] {125, 250, 500, 1000}, new double[] {alphaVAR, alphaES});
+		compareHistoricalRiskGrid(new double[] {0.0, -0.0, 1.0, -2.0, 1.0, -2.0, 0.0, 3.0, -0.0, -2.0, 1.0, 0.5},
+				new int[] {3, 5, 8}, new double[] {0.1, 0.25, 0.5});
+		double[] scaleShiftReturns = new double[20000];
+		Random random = new Random(42);
+		for (int i = 0; i < scaleShiftReturns.length; i++) {
+			double scale = i < scaleShiftReturns.length / 2 ? 1e9 : 1e-3;
+			scaleShiftReturns[i] = scale * (1.0 + 0.5 * random.nextGaussian());
+		}
+		compareHistoricalRiskGrid(scaleShiftReturns, new int[] {125, 250}, new double[] {alphaVAR, alphaES});
+		System.out.println();
+		System.out.println();
+		System.out.println();
+		
+		
 		/*
 		 * usiamo i metodi della classe RiskMeasures per plottare le due misure di rischio nel tempo,
-		 * creando prima il vettore delle date
+		 * prendendo il vettore delle date allineate con i prezzi
 		 */
-		LocalDate[] dates = DataCollectionAndPlotting.getDates();
+		LocalDate[] dates = tester.getDates();
 		RiskMeasures.plotIterateHistoricalVaR(dates, iteratedHVAR, alphaVAR, windowLength);
 		RiskMeasures.plotIterateHistoricalES(dates, iteratedHES, alphaES, windowLength);
 		
@@ -79,6 +109,12 @@ public class Tests {
 		// Creiamo l'oggetto simulation per poter utilizzare i metodi della classe MonteCarloSimulation
 		MonteCarloSimulation simulation = new MonteCarloSimulation();
 		
+		/*
+		 * Verifichiamo il calcolo raggruppato usato da RiskService, in cui più richieste
+		 * condividono le stesse simulazioni.
+		 */
+		checkBatchedSimulation(tester);
+		
 		// Creaiamo il vettore dei VaR iterati simulati
 		double[] iteratedSimulatedVAR = simulation.iteratedSimulatedVaR(windowLength, budget1, budget2);
 		
@@ -100,4 +136,109 @@ public class Tests {
 		MonteCarloSimulation.plotIteratedSimulatedlES(dates, iteratedSimulatedES, alphaES, windowLength);	
 	}
 	
+	
+	/*
+	 * Questo metodo allinea due strumenti con calendari diversi: il primo quota nei giorni 1, 2, 4, 6
+	 * e il secondo nei giorni 2, 3, 6, 7. Con DROP restano solo i giorni comuni 2 e 6; con FORWARD_FILL
+	 * restano tutti i giorni a partire dal 2 (il giorno 1 viene scartato perché il secondo strumento
+	 * non ha ancora un prezzo) e i prezzi mancanti vengono riportati in avanti.
+	 * Se il risultato non è quello atteso viene lanciata un'eccezione.
+	 */
+	private static void checkAlignedPriceLoader() throws IOException {
+		String[] names = {"Stock A", "Stock B"};
+		int[][] days = {{1, 2, 4, 6}, {2, 3, 6, 7}};
+		double[][] prices = {{10.0, 20.0, 40.0, 60.0}, {200.0, 300.0, 600.0, 700.0}};
+		
+		AlignedPrices dropped = AlignedPriceLoader.align(AlignedPriceLoader.GapPolicy.DROP, names, days, prices);
+		checkAlignment("DROP", dropped, new int[] {2, 6},
+				new double[] {20.0, 60.0}, new double[] {200.0, 600.0});
+		
+		AlignedPrices filled = AlignedPriceLoader.align(AlignedPriceLoader.GapPolicy.FORWARD_FILL, names, days, prices);
+		checkAlignment("FORWARD_FILL", filled, new int[] {2, 3, 4, 6, 7},
+				new double[] {20.0, 20.0, 40.0, 60.0, 60.0}, new double[] {200.0, 300.0, 300.0, 600.0, 700.0});
+		
+		System.out.println("Allineamento per data verificato: DROP " + Arrays.toString(dropped.getEpochDays())
+				+ ", FORWARD_FILL " + Arrays.toString(filled.getEpochDays()));
+	}
+	
+	private static void checkAlignment(String policy, AlignedPrices aligned, int[] expectedDays,
+			double[] expectedPrices1, double[] expectedPrices2) {
+		if (!Arrays.equals(aligned.getEpochDays(), expectedDays)
+				|| !Arrays.equals(aligned.getPrices(0), expectedPrices1)
+				|| !Arrays.equals(aligned.getPrices(1), expectedPrices2)) {
+			throw new IllegalStateException("AlignedPriceLoader returned a wrong alignment with " + policy);
+		}
+	}
+	
+	
+	/*
+	 * Questo metodo verifica iteratedSimulatedRiskMeasures con più budget e livelli alpha nella stessa chiamata.
+	 * Per contenere i tempi si usa una finestra che lascia solo 100 passi di simulazione.
+	 * Ogni risultato deve avere la lunghezza attesa e corrispondere alla propria richiesta:
+	 * tutte le richieste di un passo usano le stesse estrazioni, quindi raddoppiando entrambi i budget
+	 * il VaR e l'ES raddoppiano esattamente, e a parità di budget e di alpha l'ES non è minore del VaR.
+	 * Se una delle condizioni non è rispettata viene lanciata un'eccezione.
+	 */
+	private static void checkBatchedSimulation(DataManagement data) {
+		int windowLength = data.getPricesStock1().length - 100;
+		double[] budgets1 = {400.0, 600.0, 600.0, 1200.0, 1200.0};
+		double[] budgets2 = {600.0, 400.0, 400.0, 800.0, 800.0};
+		double[] alphas = {0.01, 0.025, 0.025, 0.025, 0.025};
+		boolean[] expectedShortfall = {false, false, true, false, true};
+		
+		double[][] results = new MonteCarloSimulation(data)
+				.iteratedSimulatedRiskMeasures(windowLength, budgets1, budgets2, alphas, expectedShortfall);
+		if (results.length != budgets1.length) {
+			throw new IllegalStateException("iteratedSimulatedRiskMeasures returned a wrong number of requests");
+		}
+		for (double[] result : results) {
+			if (result.length != data.getPricesStock1().length - windowLength) {
+				throw new IllegalStateException("iteratedSimulatedRiskMeasures returned a wrong number of observations");
+			}
+		}
+		for (int i = 0; i < results[0].length; i++) {
+			if (results[3][i] != 2.0 * results[1][i] || results[4][i] != 2.0 * results[2][i]) {
+				throw new IllegalStateException("iteratedSimulatedRiskMeasures mixed up the budgets of the requests");
+			}
+			if (results[2][i] < results[1][i]) {
+				throw new IllegalStateException("The simulated ES is smaller than the simulated VaR");
+			}
+		}
+		System.out.println("Simulazione raggruppata verificata su " + results.length + " richieste e "
+				+ results[0].length + " passi");
+	}
+	
+	
+	/*
+	 * Questo metodo confronta la griglia di HistoricalRiskGrid con iterateHistoricalVaR e iterateHistoricalES
+	 * per ogni combinazione di window length e alpha, e lancia un'eccezione se i risultati non coincidono.
+	 * Per l'ES è ammessa una piccola tolleranza relativa, dovuta al diverso ordine delle somme.
+	 */
+	private static void compareHistoricalRiskGrid(double[] returns, int[] windowLengths, double[] alphas) {
+		HistoricalRiskGrid grid = HistoricalRiskGrid.compute(returns, windowLengths, alphas);
+		double maxDifferenceVaR = 0.0;
+		double maxRelativeDifferenceES = 0.0;
+		for (int w = 0; w < windowLengths.length; w++) {
+			for (int a = 0; a < alphas.length; a++) {
+				double[] expectedVaR = RiskMeasures.iterateHistoricalVaR(returns, alphas[a], windowLengths[w]);
+				double[] expectedES = RiskMeasures.iterateHistoricalES(returns, alphas[a], windowLengths[w]);
+				double[] gridVaR = grid.getIteratedHistoricalVaR(w, a);
+				double[] gridES = grid.getIteratedHistoricalES(w, a);
+				if (gridVaR.length != expectedVaR.length || gridES.length != expectedES.length) {
+					throw new IllegalStateException("HistoricalRiskGrid returned a wrong number of observations");
+				}
+				for (int i = 0; i < expectedVaR.length; i++) {
+					maxDifferenceVaR = Math.max(maxDifferenceVaR, Math.abs(gridVaR[i] - expectedVaR[i]));
+					maxRelativeDifferenceES = Math.max(maxRelativeDifferenceES,
+							Math.abs(gridES[i] - expectedES[i]) / Math.max(Math.abs(expectedES[i]), Double.MIN_NORMAL));
+				}
+			}
+		}
+		System.out.println("Differenza massima tra HistoricalRiskGrid e RiskMeasures: VaR " + maxDifferenceVaR
+				+ ", ES (relativa) " + maxRelativeDifferenceES);
+		if (maxDifferenceVaR != 0.0 || maxRelativeDifferenceES > 1e-9) {
+			throw new IllegalStateException("HistoricalRiskGrid differs from RiskMeasures");
+		}
+	}
+	
 }
\ No newline at end of file